@@ -0,0 +1,204 @@
+package parser;
+
+import javax.activation.DataSource;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+/**
+ * Content addressed store for email attachments
+ * <p>
+ * Every attachment is hashed before it is written to the disk and each unique content is stored only once
+ * (file name is the SHA-256 hash). The store keeps a manifest about which message refers to which attachments,
+ * so the same instance can be shared between the conversions of a whole mailbox.
+ *
+ * @author nickdale
+ * @version 1.0.2
+ */
+public class AttachmentStore {
+
+    private static final String HASH_ALGORITHM = "SHA-256";
+    private static final String TEMP_PREFIX = "blob_";
+    private static final int BUFFER_SIZE = 8192;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final Path storeDir;
+    private final Map<String, List<StoredAttachment>> manifest;
+
+    /**
+     * @param storeDir directory of the stored attachments, it is created if it does not exist
+     * @throws IOException directory can not be created
+     */
+    public AttachmentStore(Path storeDir) throws IOException {
+        this.storeDir = Files.createDirectories(storeDir);
+        this.manifest = new LinkedHashMap<>();
+    }
+
+    public Path getStoreDir() {
+        return storeDir;
+    }
+
+    /**
+     * Write the content into the store if it is not there yet
+     * <p>
+     * The content is read twice: first only to compute the hash, then to write it when it is not stored yet,
+     * so a duplicate is never written to the disk. The stored content is read-only, because it is shared by every
+     * email which has the same attachment.
+     *
+     * @param fileName   original name of the attachment
+     * @param dataSource content of the attachment, it has to be readable more than once
+     * @return reference to the stored content
+     * @throws IOException content can not be read or written
+     */
+    public StoredAttachment store(String fileName, DataSource dataSource) throws IOException {
+        String hash;
+        try (InputStream inputStream = dataSource.getInputStream()) {
+            hash = hash(inputStream);
+        }
+
+        Path blob = storeDir.resolve(hash);
+        boolean duplicate = Files.exists(blob);
+        if (!duplicate) {
+            // temp file is in the store directory, so the final move is only a rename
+            Path temp = Files.createTempFile(storeDir, TEMP_PREFIX, null);
+            try (InputStream inputStream = dataSource.getInputStream()) {
+                Files.copy(inputStream, temp, REPLACE_EXISTING);
+                Files.move(temp, blob);
+                blob.toFile().setReadOnly();
+            } catch (FileAlreadyExistsException ex) {
+                // stored by an other thread in the meantime
+                duplicate = true;
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        }
+
+        return new StoredAttachment(fileName, hash, blob.toFile(), duplicate);
+    }
+
+    /**
+     * Register the attachment of the email in the manifest
+     * <p>
+     * Emails with the same message key (for example: the same mail in several folders of a mailbox export)
+     * are merged under one key, an attachment with the same file name and content is listed only once.
+     *
+     * @param messageKey identifier of the email (for example: Message-ID)
+     * @param attachment stored attachment
+     */
+    public void register(String messageKey, StoredAttachment attachment) {
+        synchronized (manifest) {
+            List<StoredAttachment> attachments = manifest.computeIfAbsent(messageKey, key -> new ArrayList<>());
+            boolean listed = attachments.stream().anyMatch(listedAttachment ->
+                    listedAttachment.getFileName().equals(attachment.getFileName())
+                            && listedAttachment.getHash().equals(attachment.getHash()));
+            if (!listed) {
+                attachments.add(attachment);
+            }
+        }
+    }
+
+    /**
+     * Create a hard link to the stored content with the original file name
+     * <p>
+     * The link shares the data with the stored content, so it is read-only and it must not be modified, but it can be
+     * deleted. When the link can not be created (the file system does not support hard links or the directory is on
+     * an other volume than the store) the content is copied into a separate, writable file.
+     *
+     * @param attachment stored attachment
+     * @param dir        directory of the link
+     * @return the link or the copy of the stored content
+     * @throws IOException neither the link nor the copy can be created
+     */
+    public File link(StoredAttachment attachment, Path dir) throws IOException {
+        Path target = dir.resolve(attachment.getFileName());
+        try {
+            return Files.createLink(target, attachment.getBlob().toPath()).toFile();
+        } catch (FileAlreadyExistsException ex) {
+            throw ex;
+        } catch (UnsupportedOperationException | IOException ex) {
+            File copy = Files.copy(attachment.getBlob().toPath(), target).toFile();
+            copy.setWritable(true);
+            return copy;
+        }
+    }
+
+    /**
+     * @return attachments of the emails grouped by the message key
+     */
+    public Map<String, List<StoredAttachment>> getManifest() {
+        synchronized (manifest) {
+            Map<String, List<StoredAttachment>> copy = new LinkedHashMap<>();
+            manifest.forEach((key, value) -> copy.put(key, Collections.unmodifiableList(new ArrayList<>(value))));
+            return Collections.unmodifiableMap(copy);
+        }
+    }
+
+    /**
+     * Write the manifest as tab separated lines: message key, file name, hash
+     * <p>
+     * Backslash, tab and line break characters of the message keys and file names are escaped as {@code \\},
+     * {@code \t}, {@code \n} and {@code \r}.
+     *
+     * @param file manifest file
+     * @throws IOException file can not be written
+     */
+    public void writeManifest(File file) throws IOException {
+        try (Writer writer = Files.newBufferedWriter(file.toPath(), UTF_8)) {
+            for (Map.Entry<String, List<StoredAttachment>> entry : getManifest().entrySet()) {
+                for (StoredAttachment attachment : entry.getValue()) {
+                    writer.write(escape(entry.getKey()) + "\t" + escape(attachment.getFileName()) + "\t" + attachment.getHash() + "\n");
+                }
+            }
+        }
+    }
+
+    private static String hash(InputStream inputStream) throws IOException {
+        MessageDigest digest = newDigest();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int read;
+        while ((read = inputStream.read(buffer)) != -1) {
+            digest.update(buffer, 0, read);
+        }
+        return toHex(digest.digest());
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\")
+                .replace("\t", "\\t")
+                .replace("\n", "\\n")
+                .replace("\r", "\\r");
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(HASH_ALGORITHM);
+        } catch (NoSuchAlgorithmException ex) {
+            // every Java platform has to support SHA-256
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX[(bytes[i] >> 4) & 0xF];
+            chars[i * 2 + 1] = HEX[bytes[i] & 0xF];
+        }
+        return new String(chars);
+    }
+
+}
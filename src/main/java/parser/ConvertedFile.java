@@ -15,7 +15,9 @@ public class ConvertedFile {
 
     private File html;
     private File pdf;
+    private File preview;
     private List<File> attachments;
+    private List<StoredAttachment> storedAttachments;
 
     public File getPdf() {
         return pdf;
@@ -25,6 +27,14 @@ public class ConvertedFile {
         this.pdf = pdf;
     }
 
+    public File getPreview() {
+        return preview;
+    }
+
+    public void setPreview(File preview) {
+        this.preview = preview;
+    }
+
     public File getEmailInHtml() {
         return html;
     }
@@ -48,4 +58,18 @@ public class ConvertedFile {
         this.attachments.add(attachment);
     }
 
+    /**
+     * @return references of the attachments when they were written into an {@link AttachmentStore}
+     */
+    public List<StoredAttachment> getStoredAttachments() {
+        return ofNullable(storedAttachments).orElseGet(ArrayList::new);
+    }
+
+    public void addStoredAttachment(StoredAttachment storedAttachment) {
+        if (isEmpty(this.storedAttachments)) {
+            this.storedAttachments = new ArrayList<>();
+        }
+        this.storedAttachments.add(storedAttachment);
+    }
+
 }
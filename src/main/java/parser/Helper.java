@@ -1,6 +1,10 @@
 package parser;
 
 import org.apache.commons.io.IOUtils;
+import org.jsoup.nodes.Element;
+import org.jsoup.nodes.Node;
+import org.jsoup.nodes.TextNode;
+import org.jsoup.select.NodeFilter;
 import parser.interfaces.Replacer;
 
 import java.io.File;
@@ -39,6 +43,18 @@ public class Helper {
     public static final String TEMP_DIR = "temp_eml_converter_" + now();
     public static final String DEFAULT_HTML_NAME = String.format("html_mail_%s.html", now().toString());
     public static final String DEFAULT_PDF_NAME = String.format("pdf_mail_%s.pdf", now().toString());
+    public static final String DEFAULT_PREVIEW_PDF_NAME = String.format("preview_mail_%s.pdf", now().toString());
+    public static final String DEFAULT_PREVIEW_IMAGE_NAME = String.format("preview_mail_%s.png", now().toString());
+    public static final String PREVIEW_IMAGE_FORMAT = "png";
+
+    // guessed amount of content which fills a page / a pixel, used to cut the document before the layout.
+    // These are not measured values: dense content (small fonts) can run out of the budget early, so the
+    // previews double the budget and lay out again when the result is shorter than requested.
+    public static final int PREVIEW_CHARS_PER_PAGE = 6000;
+    public static final int PREVIEW_PIXELS_PER_CHAR = 60;
+    public static final int PREVIEW_CHARS_PER_IMAGE = 1000;
+    // pixels of the laid out image which can be only margin / padding of the body
+    public static final int PREVIEW_OVERFLOW_MARGIN = 64;
 
     public static final String HEADER_TEMPLATE_CONTAINER = "header_template_container.html";
     public static final String EMAIL_HEADER_ID = "header_fields";
@@ -84,6 +100,48 @@ public class Helper {
         return resultString.toString();
     }
 
+    /**
+     * Remove every node after the first {@code maxChars} characters of text, the structure of the kept part is not changed.
+     * The text node which runs out of the budget is split, so a single long text is cut too.
+     *
+     * @param element  root of the content (for example: body)
+     * @param maxChars text budget, an image counts as {@link #PREVIEW_CHARS_PER_IMAGE} characters
+     * @return true if any node was removed
+     */
+    public static boolean truncate(Element element, int maxChars) {
+        int[] remaining = {maxChars};
+        boolean[] removed = {false};
+        element.filter(new NodeFilter() {
+            @Override
+            public FilterResult head(Node node, int depth) {
+                if (remaining[0] <= 0) {
+                    removed[0] = true;
+                    return FilterResult.REMOVE;
+                }
+                if (node instanceof TextNode) {
+                    TextNode textNode = (TextNode) node;
+                    int length = textNode.getWholeText().length();
+                    if (length > remaining[0]) {
+                        // keep only the beginning of a long text, the rest is the next sibling which is removed
+                        textNode.splitText(remaining[0]);
+                        remaining[0] = 0;
+                    } else {
+                        remaining[0] -= length;
+                    }
+                } else if ("img".equals(node.nodeName())) {
+                    remaining[0] -= PREVIEW_CHARS_PER_IMAGE;
+                }
+                return FilterResult.CONTINUE;
+            }
+
+            @Override
+            public FilterResult tail(Node node, int depth) {
+                return FilterResult.CONTINUE;
+            }
+        });
+        return removed[0];
+    }
+
     public static void writeToFile(byte[] bytes, final File file) throws IOException {
         try (FileOutputStream fos = new FileOutputStream(file)) {
             fos.write(bytes);
@@ -1,15 +1,26 @@
 package parser;
 
 import com.lowagie.text.DocumentException;
+import com.lowagie.text.pdf.PdfReader;
+import com.lowagie.text.pdf.PdfStamper;
 import org.apache.tika.mime.MimeTypeException;
 import org.apache.tika.mime.MimeTypes;
 import org.jsoup.Jsoup;
+import org.jsoup.helper.W3CDom;
 import org.jsoup.nodes.Document;
 import org.simplejavamail.api.email.AttachmentResource;
 import org.simplejavamail.converter.EmailConverter;
 import org.xhtmlrenderer.pdf.ITextRenderer;
+import org.xhtmlrenderer.swing.Java2DRenderer;
+import org.xhtmlrenderer.util.DownscaleQuality;
+import org.xhtmlrenderer.util.ImageUtil;
+import org.xhtmlrenderer.util.ScalingOptions;
 
+import javax.imageio.ImageIO;
 import javax.mail.MessagingException;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
@@ -21,17 +32,25 @@ import java.util.List;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
 import static java.util.Optional.ofNullable;
 import static org.apache.commons.collections4.CollectionUtils.isEmpty;
 import static org.apache.commons.lang3.StringUtils.isBlank;
 import static org.apache.commons.lang3.StringUtils.isNotBlank;
 import static parser.Helper.DEFAULT_HTML_NAME;
 import static parser.Helper.DEFAULT_PDF_NAME;
+import static parser.Helper.DEFAULT_PREVIEW_IMAGE_NAME;
+import static parser.Helper.DEFAULT_PREVIEW_PDF_NAME;
 import static parser.Helper.EMAIL_HEADER_ID;
 import static parser.Helper.HEADER_TEMPLATE_CONTAINER;
+import static parser.Helper.PREVIEW_CHARS_PER_PAGE;
+import static parser.Helper.PREVIEW_IMAGE_FORMAT;
+import static parser.Helper.PREVIEW_OVERFLOW_MARGIN;
+import static parser.Helper.PREVIEW_PIXELS_PER_CHAR;
 import static parser.Helper.TEMP_DIR;
 import static parser.Helper.UNKNOWN;
 import static parser.Helper.readTemplate;
+import static parser.Helper.truncate;
 import static parser.Helper.writeToFile;
 
 /**
@@ -120,6 +139,28 @@ public class ParserUtil {
      * @see ConvertedFile
      */
     public ConvertedFile createFile(Path tempDir, String htmlName, String pdfName) throws IOException, MessagingException, MimeTypeException, DocumentException {
+        return createFile(tempDir, htmlName, pdfName, null);
+    }
+
+    /**
+     * The attachments are written into the given store, so the same content is stored only once across the emails.
+     * The attachment files of the {@link ConvertedFile} are hard links to the stored content with the original file
+     * name, or copies of it when the directory is on an other volume than the store. They can be deleted safely, but
+     * they must not be modified: a hard link shares its data with every other email which has the same attachment.
+     * The stored content itself is available through {@link ConvertedFile#getStoredAttachments()}.
+     *
+     * @param tempDir         your directory
+     * @param htmlName        generated html file name
+     * @param pdfName         generated pdf file name
+     * @param attachmentStore shared attachment store, if it is null the attachments are copied to the directory
+     * @return instance of ConvertedFile
+     * @throws IOException
+     * @throws MessagingException
+     * @throws MimeTypeException
+     * @throws DocumentException
+     * @see AttachmentStore
+     */
+    public ConvertedFile createFile(Path tempDir, String htmlName, String pdfName, AttachmentStore attachmentStore) throws IOException, MessagingException, MimeTypeException, DocumentException {
         if (isNull(tempDir)) {
             tempDir = Files.createTempDirectory(TEMP_DIR);
         }
@@ -139,25 +180,161 @@ public class ParserUtil {
         convertToPdf(htmlBody, pdfFile);
         convertedFile.setPdf(pdfFile);
         if (downloadAttachments) {
-            attachments(messageParser, tempDir);
+            attachments(messageParser, tempDir, attachmentStore, pdfFile);
         }
         return convertedFile;
     }
 
+    /**
+     * Render only the first pages of the email into a pdf file.
+     * <p>
+     * The document is cut before the layout, so the rest of a long email is not laid out. When the cut was too early
+     * the budget is doubled and the layout is repeated until the given number of pages or the end of the email is reached.
+     *
+     * @param tempDir your directory
+     * @param pdfName generated pdf file name
+     * @param pages   maximum number of the pages
+     * @return the generated pdf file
+     * @throws IOException
+     * @throws MessagingException
+     * @throws DocumentException
+     */
+    public File createPdfPreview(Path tempDir, String pdfName, int pages) throws IOException, MessagingException, DocumentException {
+        if (pages < 1) {
+            throw new IllegalArgumentException("Number of the preview pages must be positive");
+        }
+        if (isNull(tempDir)) {
+            tempDir = Files.createTempDirectory(TEMP_DIR);
+        }
+        if (isBlank(pdfName)) {
+            pdfName = DEFAULT_PREVIEW_PDF_NAME;
+        }
+        final Document fullDocument = createDocument(messageParser.getMimeMessageObject().getHtmlBody());
+        int budget = pages * PREVIEW_CHARS_PER_PAGE;
+        ITextRenderer renderer;
+        while (true) {
+            final Document document = fullDocument.clone();
+            boolean truncated = truncate(document.body(), budget);
+            renderer = createPdfRenderer();
+            renderer.setDocumentFromString(document.html());
+            renderer.layout();
+            // the budget is only an estimate, lay out more content until the cut is after the last requested page
+            if (!truncated || renderer.getRootBox().getLayer().getPages().size() > pages) {
+                break;
+            }
+            budget = doubleBudget(budget);
+        }
+        ByteArrayOutputStream pdfStream = new ByteArrayOutputStream();
+        renderer.createPDF(pdfStream);
+        File pdfFile = Files.createFile(tempDir.resolve(pdfName)).toFile();
+        writeFirstPages(pdfStream.toByteArray(), pages, pdfFile);
+        convertedFile.setPreview(pdfFile);
+        return pdfFile;
+    }
+
+    /**
+     * Render only the visible part of the email into a png image.
+     * <p>
+     * The document is cut before the layout, so the rest of a long email is not laid out. When the cut was too early
+     * the budget is doubled and the layout is repeated until the given height or the end of the email is reached.
+     *
+     * @param tempDir   your directory
+     * @param imageName generated image file name
+     * @param width     layout width in pixels
+     * @param height    layout height in pixels
+     * @param scale     scale of the generated image (for example: 0.25 for thumbnails)
+     * @return the generated image file
+     * @throws IOException
+     * @throws MessagingException
+     */
+    public File createImagePreview(Path tempDir, String imageName, int width, int height, float scale) throws IOException, MessagingException {
+        if (width < 1 || height < 1 || scale <= 0) {
+            throw new IllegalArgumentException("Size and scale of the preview image must be positive");
+        }
+        if (isNull(tempDir)) {
+            tempDir = Files.createTempDirectory(TEMP_DIR);
+        }
+        if (isBlank(imageName)) {
+            imageName = DEFAULT_PREVIEW_IMAGE_NAME;
+        }
+        final Document fullDocument = createDocument(messageParser.getMimeMessageObject().getHtmlBody());
+        int budget = Math.max(1, (int) Math.min(Integer.MAX_VALUE, (long) width * height / PREVIEW_PIXELS_PER_CHAR));
+        BufferedImage image;
+        while (true) {
+            final Document document = fullDocument.clone();
+            boolean truncated = truncate(document.body(), budget);
+            image = new Java2DRenderer(new W3CDom().fromJsoup(document), width).getImage();
+            // the budget is only an estimate, lay out more content until the cut is below the requested height
+            if (!truncated || image.getHeight() > height + PREVIEW_OVERFLOW_MARGIN) {
+                break;
+            }
+            budget = doubleBudget(budget);
+        }
+        if (image.getHeight() > height) {
+            image = image.getSubimage(0, 0, image.getWidth(), height);
+        }
+        if (scale != 1f) {
+            image = scale(image, scale);
+        }
+        File imageFile = Files.createFile(tempDir.resolve(imageName)).toFile();
+        ImageIO.write(image, PREVIEW_IMAGE_FORMAT, imageFile);
+        convertedFile.setPreview(imageFile);
+        return imageFile;
+    }
+
     private void convertToPdf(final String htmlBody, final File pdfFile) throws IOException, DocumentException, MessagingException {
-        ITextRenderer renderer = new ITextRenderer(20f * 4.5f / 3f, 20);
+        ITextRenderer renderer = createPdfRenderer();
         OutputStream outputStream = new FileOutputStream(pdfFile);
 
+        final Document document = createDocument(htmlBody);
+        renderer.setDocumentFromString(document.html());
+        renderer.layout();
+        renderer.createPDF(outputStream);
+    }
+
+    private ITextRenderer createPdfRenderer() {
+        return new ITextRenderer(20f * 4.5f / 3f, 20);
+    }
+
+    private Document createDocument(final String htmlBody) throws IOException, MessagingException {
         final Document document = Jsoup.parse(htmlBody);
         document.outputSettings().syntax(Document.OutputSettings.Syntax.xml);
         if (addEmailHeaders) {
+            bodyBuilder.setLength(0);
             messageParser.getHeaderData().forEach(this::append);
             document.body().prepend(readTemplate(HEADER_TEMPLATE_CONTAINER));
             document.getElementById(EMAIL_HEADER_ID).append(bodyBuilder.toString());
         }
-        renderer.setDocumentFromString(document.html());
-        renderer.layout();
-        renderer.createPDF(outputStream);
+        return document;
+    }
+
+    private void writeFirstPages(final byte[] pdf, final int pages, final File pdfFile) throws IOException, DocumentException {
+        PdfReader reader = new PdfReader(pdf);
+        try {
+            if (reader.getNumberOfPages() <= pages) {
+                writeToFile(pdf, pdfFile);
+                return;
+            }
+            reader.selectPages("1-" + pages);
+            try (OutputStream outputStream = new FileOutputStream(pdfFile)) {
+                new PdfStamper(reader, outputStream).close();
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    private int doubleBudget(final int budget) {
+        return (int) Math.min(Integer.MAX_VALUE, 2L * budget);
+    }
+
+    private BufferedImage scale(final BufferedImage image, final float scale) {
+        int width = Math.max(1, Math.round(image.getWidth() * scale));
+        int height = Math.max(1, Math.round(image.getHeight() * scale));
+        // multi-step scaling, a single bilinear step is aliased at thumbnail sizes
+        ScalingOptions options = new ScalingOptions(width, height, image.getType(),
+                DownscaleQuality.HIGH_QUALITY, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        return ImageUtil.getScaledInstance(options, image);
     }
 
     private void append(final HeaderPart headerPart) {
@@ -166,7 +343,7 @@ public class ParserUtil {
         }
     }
 
-    private void attachments(final MimeMessageParser messageParser, final Path dir) throws MimeTypeException, IOException {
+    private void attachments(final MimeMessageParser messageParser, final Path dir, final AttachmentStore attachmentStore, final File pdfFile) throws MimeTypeException, IOException, MessagingException {
         List<AttachmentResource> attachments = EmailConverter.mimeMessageToEmail(messageParser.getMimeMessage()).getAttachments();
         if (isEmpty(attachments)) return;
         for (AttachmentResource resource : attachments) {
@@ -174,10 +351,24 @@ public class ParserUtil {
             if (isBlank(attachmentFilename)) {
                 attachmentFilename = UNKNOWN + MimeTypes.getDefaultMimeTypes().forName(resource.getDataSource().getContentType()).getExtension();
             }
+            if (nonNull(attachmentStore)) {
+                StoredAttachment storedAttachment = attachmentStore.store(attachmentFilename, resource.getDataSource());
+                // register only when the file of the email is created
+                File file = attachmentStore.link(storedAttachment, dir);
+                attachmentStore.register(messageKey(messageParser, pdfFile), storedAttachment);
+                this.convertedFile.addStoredAttachment(storedAttachment);
+                this.convertedFile.addAttachment(file);
+                continue;
+            }
             File file = Files.createFile(dir.resolve(attachmentFilename)).toFile();
             writeToFile(resource.getDataSource().getInputStream(), file);
             this.convertedFile.addAttachment(file);
         }
     }
 
+    private String messageKey(final MimeMessageParser messageParser, final File pdfFile) throws MessagingException {
+        String messageId = messageParser.getMimeMessage().getMessageID();
+        return isNotBlank(messageId) ? messageId : pdfFile.getAbsolutePath();
+    }
+
 }
@@ -0,0 +1,53 @@
+package parser;
+
+import java.io.File;
+
+/**
+ * Reference to an attachment which was written into an {@link AttachmentStore}
+ *
+ * @author nickdale
+ * @version 1.0.2
+ */
+public class StoredAttachment {
+
+    private final String fileName;
+    private final String hash;
+    private final File blob;
+    private final boolean duplicate;
+
+    StoredAttachment(String fileName, String hash, File blob, boolean duplicate) {
+        this.fileName = fileName;
+        this.hash = hash;
+        this.blob = blob;
+        this.duplicate = duplicate;
+    }
+
+    /**
+     * @return original name of the attachment
+     */
+    public String getFileName() {
+        return fileName;
+    }
+
+    /**
+     * @return hex encoded SHA-256 hash of the attachment content
+     */
+    public String getHash() {
+        return hash;
+    }
+
+    /**
+     * @return the single stored copy of the content
+     */
+    public File getBlob() {
+        return blob;
+    }
+
+    /**
+     * @return true if the same content was already in the store
+     */
+    public boolean isDuplicate() {
+        return duplicate;
+    }
+
+}